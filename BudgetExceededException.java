@@ -0,0 +1,49 @@
+/**
+ * Thrown when parsing or evaluating an expression would exceed a limit of its EvaluationBudget
+ */
+public class BudgetExceededException extends RuntimeException
+{
+   private static final long serialVersionUID = 1L;
+
+   private final String limit;
+   private final int maximum;
+   private final int actual;
+
+   /**
+    * Create the exception
+    * @param limit the name of the limit that was exceeded
+    * @param maximum the value of the limit
+    * @param actual the value that exceeded it
+    */
+   public BudgetExceededException(String limit, int maximum, int actual)
+   {
+      super("Expression exceeds the " + limit + " limit of " + maximum + " (" + actual + ")");
+      this.limit = limit;
+      this.maximum = maximum;
+      this.actual = actual;
+   }
+
+   /**
+    * @return the name of the limit that was exceeded
+    */
+   public String getLimit()
+   {
+      return this.limit;
+   }
+
+   /**
+    * @return the value of the limit
+    */
+   public int getMaximum()
+   {
+      return this.maximum;
+   }
+
+   /**
+    * @return the value that exceeded the limit
+    */
+   public int getActual()
+   {
+      return this.actual;
+   }
+}
@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads a file of expressions, one per line with a single space between each
+ * token, by memory-mapping it, splitting it into line-aligned chunks and
+ * parsing the chunks in parallel on a fork/join pool.
+ */
+public class BulkLoader
+{
+   private static final int MIN_CHUNK_SIZE = 64 * 1024;
+   private static final int CHUNKS_PER_THREAD = 4;
+
+   /**
+    * A class representing a line of the input that could not be parsed
+    */
+   public static class ParseError
+   {
+      private final int line;
+      private final String message;
+
+      /**
+       * Create the error
+       * @param line the 1-based number of the line that could not be parsed
+       * @param message a description of the problem
+       */
+      public ParseError(int line, String message)
+      {
+         this.line = line;
+         this.message = message;
+      }
+
+      /**
+       * @return the 1-based number of the line that could not be parsed
+       */
+      public int getLine()
+      {
+         return this.line;
+      }
+
+      /**
+       * @return a description of the problem
+       */
+      public String getMessage()
+      {
+         return this.message;
+      }
+
+      /**
+       * @return a String of the form "line N: message"
+       */
+      @Override
+      public String toString()
+      {
+         return "line " + this.line + ": " + this.message;
+      }
+   }
+
+   /**
+    * A class representing the outcome of a bulk load
+    */
+   public static class Result
+   {
+      private final List<Expression> expressions;
+      private final List<ParseError> errors;
+
+      private Result(List<Expression> expressions, List<ParseError> errors)
+      {
+         this.expressions = Collections.unmodifiableList(expressions);
+         this.errors = Collections.unmodifiableList(errors);
+      }
+
+      /**
+       * @return one Expression per line of the input in file order, with null for blank lines and lines that could not be parsed
+       */
+      public List<Expression> getExpressions()
+      {
+         return this.expressions;
+      }
+
+      /**
+       * @return the lines that could not be parsed, in file order
+       */
+      public List<ParseError> getErrors()
+      {
+         return this.errors;
+      }
+   }
+
+   /**
+    * The expressions and errors of a single chunk, with line numbers relative to the chunk
+    */
+   private static class Chunk
+   {
+      private final int start;
+      private final int end;
+      private final List<Expression> expressions = new ArrayList<Expression>();
+      private final List<ParseError> errors = new ArrayList<ParseError>();
+
+      private Chunk(int start, int end)
+      {
+         this.start = start;
+         this.end = end;
+      }
+   }
+
+   /**
+    * Parses a range of chunks, splitting it in half until a single chunk remains
+    */
+   private static class ParseTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final MappedByteBuffer buffer;
+      private final Chunk[] chunks;
+      private final int low;
+      private final int high;
+      private final boolean postfix;
+
+      private ParseTask(MappedByteBuffer buffer, Chunk[] chunks, int low, int high, boolean postfix)
+      {
+         this.buffer = buffer;
+         this.chunks = chunks;
+         this.low = low;
+         this.high = high;
+         this.postfix = postfix;
+      }
+
+      @Override
+      protected void compute()
+      {
+         if (this.high - this.low == 1) {
+            parseChunk(this.buffer, this.chunks[this.low], this.postfix);
+         }
+         else {
+            int mid = (this.low + this.high) >>> 1;
+            invokeAll(new ParseTask(this.buffer, this.chunks, this.low, mid, this.postfix),
+                      new ParseTask(this.buffer, this.chunks, mid, this.high, this.postfix));
+         }
+      }
+   }
+
+   /**
+    * Loads a file of expressions using the common fork/join pool
+    * @param filename the name of the input file
+    * @param postfix true if the expressions are in postfix notation, false if they are in infix notation
+    * @return the parsed expressions and the lines that could not be parsed
+    */
+   public static Result load(String filename, boolean postfix) throws IOException
+   {
+      return load(filename, postfix, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Loads a file of expressions
+    * @param filename the name of the input file
+    * @param postfix true if the expressions are in postfix notation, false if they are in infix notation
+    * @param pool the pool to parse the chunks on
+    * @return the parsed expressions and the lines that could not be parsed
+    */
+   public static Result load(String filename, boolean postfix, ForkJoinPool pool) throws IOException
+   {
+      MappedByteBuffer buffer;
+      try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+         if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException(filename + " is too large to map (" + channel.size() + " bytes)");
+         }
+         buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+
+      Chunk[] chunks = split(buffer, pool.getParallelism() * CHUNKS_PER_THREAD);
+      if (chunks.length > 0) {
+         pool.invoke(new ParseTask(buffer, chunks, 0, chunks.length, postfix));
+      }
+
+      List<Expression> expressions = new ArrayList<Expression>();
+      List<ParseError> errors = new ArrayList<ParseError>();
+      for (Chunk c : chunks) {
+         int firstLine = expressions.size();
+         for (ParseError e : c.errors) {
+            errors.add(new ParseError(firstLine + e.line, e.message));
+         }
+         expressions.addAll(c.expressions);
+      }
+      return new Result(expressions, errors);
+   }
+
+   /**
+    * Splits the buffer into about count chunks, each ending just after a line break or at the end of the buffer
+    */
+   private static Chunk[] split(MappedByteBuffer buffer, int count)
+   {
+      int size = buffer.limit();
+      int target = Math.max(MIN_CHUNK_SIZE, size / Math.max(count, 1));
+      List<Chunk> chunks = new ArrayList<Chunk>();
+      int start = 0;
+      while (start < size) {
+         int end = (int) Math.min((long) start + target, size);
+         while (end < size && buffer.get(end - 1) != '\n') {
+            end++;
+         }
+         chunks.add(new Chunk(start, end));
+         start = end;
+      }
+      return chunks.toArray(new Chunk[0]);
+   }
+
+   private static void parseChunk(MappedByteBuffer buffer, Chunk chunk, boolean postfix)
+   {
+      byte[] bytes = new byte[chunk.end - chunk.start];
+      buffer.duplicate().position(chunk.start).get(bytes);
+      String text = new String(bytes, StandardCharsets.UTF_8);
+
+      int lineStart = 0;
+      while (lineStart < text.length()) {
+         int lineEnd = text.indexOf('\n', lineStart);
+         if (lineEnd == -1) {
+            lineEnd = text.length();
+         }
+         String line = text.substring(lineStart, lineEnd);
+         if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+         }
+         chunk.expressions.add(parseLine(line, chunk.expressions.size() + 1, chunk.errors, postfix));
+         lineStart = lineEnd + 1;
+      }
+   }
+
+   private static Expression parseLine(String line, int lineNumber, List<ParseError> errors, boolean postfix)
+   {
+      if (line.isEmpty()) {
+         return null;
+      }
+      try {
+         if (postfix) {
+            return Expression.expressionFromPostfix(line.split(" "));
+         }
+         return Expression.expressionFromInfix(line.split(" "));
+      }
+      catch (RuntimeException e) {
+         // Malformed input surfaces as IllegalArgumentException, NumberFormatException or EmptyStackException
+         errors.add(new ParseError(lineNumber, e.getMessage() != null ? e.getMessage() : e.toString()));
+         return null;
+      }
+   }
+}
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A stress test for sharing one expression tree between threads. It evaluates
+ * the same tree for many assignments with evaluateAll on pools of increasing
+ * size, checks every result against sequential evaluation, and prints the
+ * time taken at each pool size.
+ */
+public class ConcurrentEvaluate
+{
+   public static void main(String[] args)
+   {
+      int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+      Random random = new Random(42);
+
+      // A deep tree with enough nodes that evaluation dominates the cost of scheduling
+      String[] variables = {"a", "b", "c", "d", "e"};
+      String[] operators = {"+", "-", "*", "/"};
+      List<String> postfix = new ArrayList<String>();
+      postfix.add("a");
+      for (int i = 0; i < 200; i++) {
+         String op = operators[random.nextInt(operators.length)];
+         if (op.equals("/") || random.nextBoolean()) {
+            // Only divide by a positive constant so no assignment can divide by zero
+            postfix.add(String.valueOf(random.nextInt(9) + 1));
+         }
+         else {
+            postfix.add(variables[random.nextInt(variables.length)]);
+         }
+         postfix.add(op);
+      }
+      final Expression shared = Expression.expressionFromPostfix(postfix.toArray(new String[0]));
+
+      List<HashMap<String, Integer>> assignments = new ArrayList<HashMap<String, Integer>>();
+      for (int i = 0; i < rows; i++) {
+         HashMap<String, Integer> assignment = new HashMap<String, Integer>();
+         for (String v : variables) {
+            assignment.put(v, random.nextInt(201) - 100);
+         }
+         assignments.add(assignment);
+      }
+
+      // Keep the best of a few runs so JIT warm-up does not distort the comparison
+      int[] expected = new int[rows];
+      long sequential = Long.MAX_VALUE;
+      long start;
+      for (int run = 0; run < 5; run++) {
+         start = System.nanoTime();
+         for (int i = 0; i < rows; i++) {
+            expected[i] = shared.evaluate(assignments.get(i));
+         }
+         sequential = Math.min(sequential, System.nanoTime() - start);
+      }
+      System.out.printf("%d nodes, %d assignments%n", shared.size(), rows);
+      System.out.printf("sequential: %8.1f ms%n", sequential / 1e6);
+
+      boolean allCorrect = true;
+      int cores = Runtime.getRuntime().availableProcessors();
+      for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(threads * 2, cores)) {
+         ForkJoinPool pool = new ForkJoinPool(threads);
+         int[] results = null;
+         long best = Long.MAX_VALUE;
+         for (int run = 0; run < 5; run++) {
+            start = System.nanoTime();
+            results = shared.evaluateAll(assignments, pool);
+            best = Math.min(best, System.nanoTime() - start);
+         }
+         pool.shutdown();
+         boolean correct = Arrays.equals(expected, results);
+         allCorrect &= correct;
+         System.out.printf("%2d threads: %8.1f ms  speedup %5.2fx  %s%n", threads, best / 1e6,
+                           (double) sequential / best, correct ? "correct" : "MISMATCH");
+      }
+
+      if (!allCorrect) {
+         System.out.println("Concurrent results differ from sequential evaluation");
+         System.exit(1);
+      }
+   }
+}
@@ -0,0 +1,96 @@
+/**
+ * A set of limits on the size of an expression and the work spent on it,
+ * used to keep a single untrusted expression from monopolizing a thread.
+ * Exceeding a limit raises a BudgetExceededException.
+ */
+public class EvaluationBudget
+{
+   /**
+    * A budget that imposes no limits
+    */
+   public static final EvaluationBudget UNLIMITED =
+      new EvaluationBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+   private final int maxTokens;
+   private final int maxNodes;
+   private final int maxDepth;
+   private final int maxSteps;
+
+   /**
+    * Create the budget
+    * @param maxTokens the maximum number of tokens accepted by the parser
+    * @param maxNodes the maximum number of nodes in a parsed tree
+    * @param maxDepth the maximum depth of a tree, counting a lone operand as depth 1
+    * @param maxSteps the maximum number of nodes visited by a single evaluation
+    */
+   public EvaluationBudget(int maxTokens, int maxNodes, int maxDepth, int maxSteps)
+   {
+      if (maxTokens < 1 || maxNodes < 1 || maxDepth < 1 || maxSteps < 1) {
+         throw new IllegalArgumentException("Budget limits must be positive");
+      }
+      this.maxTokens = maxTokens;
+      this.maxNodes = maxNodes;
+      this.maxDepth = maxDepth;
+      this.maxSteps = maxSteps;
+   }
+
+   /**
+    * @return the maximum number of tokens accepted by the parser
+    */
+   public int getMaxTokens()
+   {
+      return this.maxTokens;
+   }
+
+   /**
+    * @return the maximum number of nodes in a parsed tree
+    */
+   public int getMaxNodes()
+   {
+      return this.maxNodes;
+   }
+
+   /**
+    * @return the maximum depth of a tree
+    */
+   public int getMaxDepth()
+   {
+      return this.maxDepth;
+   }
+
+   /**
+    * @return the maximum number of nodes visited by a single evaluation
+    */
+   public int getMaxSteps()
+   {
+      return this.maxSteps;
+   }
+
+   void checkTokens(int tokens)
+   {
+      if (tokens > this.maxTokens) {
+         throw new BudgetExceededException("token", this.maxTokens, tokens);
+      }
+   }
+
+   void checkNodes(int nodes)
+   {
+      if (nodes > this.maxNodes) {
+         throw new BudgetExceededException("node", this.maxNodes, nodes);
+      }
+   }
+
+   void checkDepth(int depth)
+   {
+      if (depth > this.maxDepth) {
+         throw new BudgetExceededException("depth", this.maxDepth, depth);
+      }
+   }
+
+   void checkSteps(int steps)
+   {
+      if (steps > this.maxSteps) {
+         throw new BudgetExceededException("evaluation step", this.maxSteps, steps);
+      }
+   }
+}
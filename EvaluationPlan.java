@@ -0,0 +1,221 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compiled form of a set of expressions that evaluates every distinct
+ * subexpression once per assignment. Structurally equal subtrees, including
+ * sums and products with their operands swapped, are merged into a single
+ * instruction shared by all expressions that contain them.
+ */
+public class EvaluationPlan
+{
+   static final int VARIABLE = 0;
+   static final int CONSTANT = 1;
+   static final int OPERATOR = 2;
+
+   /**
+    * A key identifying an instruction by its kind, operator and operands
+    */
+   private static class Key
+   {
+      private final int kind;
+      private final String operator;
+      private final int left;
+      private final int right;
+
+      private Key(int kind, String operator, int left, int right)
+      {
+         this.kind = kind;
+         this.operator = operator;
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof Key)) {
+            return false;
+         }
+         Key k = (Key) obj;
+         return k.kind == this.kind && k.left == this.left && k.right == this.right
+            && (k.operator == null ? this.operator == null : k.operator.equals(this.operator));
+      }
+
+      @Override
+      public int hashCode()
+      {
+         int h = this.kind * 31 + (this.operator == null ? 0 : this.operator.hashCode());
+         return (h * 31 + this.left) * 31 + this.right;
+      }
+   }
+
+   // A VARIABLE instruction loads variables[lefts[i]] and a CONSTANT is the value lefts[i];
+   // an OPERATOR instruction applies operators[i] to the values of instructions lefts[i] and rights[i]
+   final String[] variables;
+   final int[] kinds;
+   final Expression[] operators;
+   final int[] lefts;
+   final int[] rights;
+   final int[] roots;
+   private final int nodeCount;
+
+   private EvaluationPlan(String[] variables, int[] kinds, Expression[] operators, int[] lefts, int[] rights,
+                          int[] roots, int nodeCount)
+   {
+      this.variables = variables;
+      this.kinds = kinds;
+      this.operators = operators;
+      this.lefts = lefts;
+      this.rights = rights;
+      this.roots = roots;
+      this.nodeCount = nodeCount;
+   }
+
+   /**
+    * Compiles a set of expressions into a single plan. The plan is evaluated as a whole, so a
+    * failure in any one expression fails the evaluation of all of them; see evaluate.
+    * @param expressions the expressions to evaluate together
+    * @return a plan computing the value of every expression
+    */
+   public static EvaluationPlan compile(List<Expression> expressions)
+   {
+      Compiler c = new Compiler();
+      int[] roots = new int[expressions.size()];
+      for (int i = 0; i < roots.length; i++) {
+         roots[i] = c.compile(expressions.get(i));
+      }
+      return new EvaluationPlan(c.variables.toArray(new String[0]), toArray(c.kinds), c.operators.toArray(new Expression[0]),
+                                toArray(c.lefts), toArray(c.rights), roots, c.nodeCount);
+   }
+
+   /**
+    * Builds the instruction list, reusing an existing instruction whenever an identical one is requested
+    */
+   private static class Compiler
+   {
+      private final List<String> variables = new ArrayList<String>();
+      private final List<Integer> kinds = new ArrayList<Integer>();
+      private final List<Expression> operators = new ArrayList<Expression>();
+      private final List<Integer> lefts = new ArrayList<Integer>();
+      private final List<Integer> rights = new ArrayList<Integer>();
+      private final HashMap<String, Integer> variableSlots = new HashMap<String, Integer>();
+      private final HashMap<Key, Integer> instructions = new HashMap<Key, Integer>();
+      private int nodeCount;
+
+      private int compile(Expression expr)
+      {
+         this.nodeCount++;
+         Integer constant = expr.getConstant();
+         if (constant != null) {
+            return instruction(CONSTANT, null, constant, 0);
+         }
+         String name = expr.getVariable();
+         if (name != null) {
+            Integer slot = this.variableSlots.get(name);
+            if (slot == null) {
+               slot = this.variables.size();
+               this.variables.add(name);
+               this.variableSlots.put(name, slot);
+            }
+            return instruction(VARIABLE, null, slot, 0);
+         }
+         int left = compile(expr.getLeft());
+         int right = compile(expr.getRight());
+         if (expr.isCommutative() && left > right) {
+            int t = left;
+            left = right;
+            right = t;
+         }
+         return instruction(OPERATOR, expr, left, right);
+      }
+
+      private int instruction(int kind, Expression operator, int left, int right)
+      {
+         Key key = new Key(kind, operator == null ? null : operator.getOperator(), left, right);
+         Integer index = this.instructions.get(key);
+         if (index == null) {
+            index = this.kinds.size();
+            this.kinds.add(kind);
+            this.operators.add(operator);
+            this.lefts.add(left);
+            this.rights.add(right);
+            this.instructions.put(key, index);
+         }
+         return index;
+      }
+   }
+
+   private static int[] toArray(List<Integer> list)
+   {
+      int[] array = new int[list.size()];
+      for (int i = 0; i < array.length; i++) {
+         array[i] = list.get(i);
+      }
+      return array;
+   }
+
+   /**
+    * Evaluates every expression of the plan given assignments of values to variables.
+    * Every distinct subexpression is computed eagerly, so the evaluation is all or nothing:
+    * a division by zero in any expression, or a variable of any expression that is missing
+    * from assignments, throws and discards the results of the other expressions as well.
+    * Evaluate the expressions separately when one failing must not affect the others.
+    * @param assignments a HashMap from Strings (variable names) to Integers (values).
+    * @return the results of the expressions, in the order they were compiled
+    */
+   public int[] evaluate(HashMap<String, Integer> assignments)
+   {
+      int[] variableValues = new int[this.variables.length];
+      for (int i = 0; i < variableValues.length; i++) {
+         variableValues[i] = assignments.get(this.variables[i]);
+      }
+      int[] values = new int[this.kinds.length];
+      for (int i = 0; i < values.length; i++) {
+         values[i] = step(i, values, variableValues);
+      }
+      int[] results = new int[this.roots.length];
+      for (int i = 0; i < results.length; i++) {
+         results[i] = values[this.roots[i]];
+      }
+      return results;
+   }
+
+   /**
+    * Computes a single instruction
+    * @param i the index of the instruction
+    * @param values the values of the instructions before i
+    * @param variableValues the values of the variables, indexed like variables
+    * @return the value of instruction i
+    */
+   int step(int i, int[] values, int[] variableValues)
+   {
+      switch (this.kinds[i]) {
+         case VARIABLE:
+            return variableValues[this.lefts[i]];
+         case CONSTANT:
+            return this.lefts[i];
+         case OPERATOR:
+            return this.operators[i].apply(values[this.lefts[i]], values[this.rights[i]]);
+         default:
+            throw new IllegalStateException("Unknown instruction kind " + this.kinds[i]);
+      }
+   }
+
+   /**
+    * @return the number of distinct subexpressions computed per assignment
+    */
+   public int getInstructionCount()
+   {
+      return this.kinds.length;
+   }
+
+   /**
+    * @return the total number of nodes in the compiled expressions, which is what evaluating them one by one would compute
+    */
+   public int getNodeCount()
+   {
+      return this.nodeCount;
+   }
+}
@@ -1,4 +1,5 @@
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Set;
 import java.util.TreeSet;
 import java.io.File;
@@ -7,9 +8,14 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.Stack;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
- * A class representing an abstract arithmetic expression
+ * A class representing an abstract arithmetic expression.
+ * Expressions are immutable: every field is final and set in the constructor, so a tree
+ * can be shared between threads without copying or locking once it has been built.
  */
 public abstract class Expression
 {
@@ -19,19 +25,36 @@ public abstract class Expression
     * @return a new Expression that represents postfix
     */
    public static Expression expressionFromPostfix(String[] postfix)
+   {
+      return expressionFromPostfix(postfix, EvaluationBudget.UNLIMITED);
+   }
+
+   /**
+    * Creates a tree from an expression in postfix notation, enforcing limits on its size
+    * @param postfix an array of Strings representing a postfix arithmetic expression
+    * @param budget the limits on the number of tokens, the number of nodes and the depth of the tree
+    * @return a new Expression that represents postfix
+    * @throws BudgetExceededException if the expression exceeds a limit of budget
+    */
+   public static Expression expressionFromPostfix(String[] postfix, EvaluationBudget budget)
    {
       //////REPLACE WITH YOUR CODE
+      budget.checkTokens(postfix.length);
+      int nodes = 0;
       Stack<Expression> s = new Stack<Expression>();
       for (int i = 0; i < postfix.length; i++) {
          String token = postfix[i];
          if (token.matches("^-?\\d+")) {
+            budget.checkNodes(++nodes);
             s.push(new IntegerOperand(Integer.parseInt(token)));
          }
          else if (token.matches("[a-zA-Z]")) {
+            budget.checkNodes(++nodes);
             s.push(new VariableOperand(token));
          }
          else if (token.matches("-|\\*|/|\\+")) {
-            s.push(makeExpression(token, s));
+            budget.checkNodes(++nodes);
+            s.push(makeExpression(token, s, budget));
          }
          else {
             throw new IllegalArgumentException("Arguments can only be integers, variables or mathematics operands");
@@ -40,7 +63,7 @@ public abstract class Expression
       return s.peek();
    }
 
-   private static Expression makeExpression(String op, Stack<Expression> s) {
+   private static Expression makeExpression(String op, Stack<Expression> s, EvaluationBudget budget) {
       Expression right = s.pop();
       Expression left = s.pop();
       Expression e;
@@ -56,6 +79,7 @@ public abstract class Expression
       else {
          e = new QuotientExpression(left, right);
       }
+      budget.checkDepth(e.height());
       return e;
    }
 
@@ -65,8 +89,22 @@ public abstract class Expression
     * @return a new Expression that represents infix
     */
    public static Expression expressionFromInfix(String[] infix)
+   {
+      return expressionFromInfix(infix, EvaluationBudget.UNLIMITED);
+   }
+
+   /**
+    * Creates a tree from an expression in infix notation, enforcing limits on its size
+    * @param infix an array of Strings representing a infix arithmetic expression
+    * @param budget the limits on the number of tokens, the number of nodes and the depth of the tree
+    * @return a new Expression that represents infix
+    * @throws BudgetExceededException if the expression exceeds a limit of budget
+    */
+   public static Expression expressionFromInfix(String[] infix, EvaluationBudget budget)
    {
       //////REPLACE WITH YOUR CODE
+      budget.checkTokens(infix.length);
+      int nodes = 0;
       ArrayList<String> operators = new ArrayList<>();
       operators.add("+");
       operators.add("-");
@@ -77,15 +115,18 @@ public abstract class Expression
       for (int i = 0; i < infix.length; i++) {
          String token = infix[i];
          if (token.matches("^-?\\d+$")) {
+            budget.checkNodes(++nodes);
             operand.push(new IntegerOperand(Integer.parseInt(token)));
          }
          else if (token.matches("[a-zA-Z]")) {
+            budget.checkNodes(++nodes);
             operand.push(new VariableOperand(token));
          }
          else if (token.equals("(")) {
             other.push(token);
          }
          else if (token.matches("-|\\*|/|\\+")) {
+            budget.checkNodes(++nodes);
             int j = operators.indexOf(token);
             boolean stop = false;
             while (!stop) {
@@ -97,7 +138,7 @@ public abstract class Expression
                   }
                   else {
                      String op = other.pop();
-                     operand.push(makeExpression(op, operand));
+                     operand.push(makeExpression(op, operand, budget));
                   }
                }
                else {
@@ -114,7 +155,7 @@ public abstract class Expression
                   openFound = true;
                }
                else {
-                  operand.push(makeExpression(op, operand));
+                  operand.push(makeExpression(op, operand, budget));
                }
             }
          }
@@ -124,7 +165,7 @@ public abstract class Expression
       }
       while (!other.empty()) {
          String op = other.pop();
-         operand.push(makeExpression(op, operand));
+         operand.push(makeExpression(op, operand, budget));
       }
       return operand.peek();
    }
@@ -160,24 +201,227 @@ public abstract class Expression
 
    /**
     * Evaluates the expression given assignments of values to variables.
+    * Any number of threads may evaluate the same tree at once, each with its own assignments.
     * @param assignments a HashMap from Strings (variable names) to Integers (values).
     * @return the result of evaluating the expression with the given variable assignments
     */
    public abstract int evaluate(HashMap<String, Integer> assignments);
 
+   /**
+    * Evaluates the expression for many assignments in parallel on the common fork/join pool.
+    * This is safe because the tree is immutable and evaluate keeps all per-call state on the
+    * calling thread's stack; the assignments must not be modified while this runs.
+    * @param assignments a List of HashMaps from Strings (variable names) to Integers (values).
+    * @return the results of evaluating the expression with each assignment, in the same order
+    */
+   public int[] evaluateAll(List<HashMap<String, Integer>> assignments)
+   {
+      return evaluateAll(assignments, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Evaluates the expression for many assignments in parallel on the given fork/join pool,
+    * splitting the assignments into about four ranges per thread of the pool.
+    * @param assignments a List of HashMaps from Strings (variable names) to Integers (values).
+    * @param pool the pool to evaluate on
+    * @return the results of evaluating the expression with each assignment, in the same order
+    */
+   public int[] evaluateAll(List<HashMap<String, Integer>> assignments, ForkJoinPool pool)
+   {
+      int[] results = new int[assignments.size()];
+      if (results.length > 0) {
+         int threshold = Math.max(1, results.length / (pool.getParallelism() * 4));
+         pool.invoke(new EvaluateTask(this, assignments, results, 0, results.length, threshold));
+      }
+      return results;
+   }
+
+   /**
+    * Evaluates an expression for a range of assignments, splitting it in half until it is no longer than the threshold
+    */
+   private static class EvaluateTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final Expression expr;
+      private final List<HashMap<String, Integer>> assignments;
+      private final int[] results;
+      private final int low;
+      private final int high;
+      private final int threshold;
+
+      private EvaluateTask(Expression expr, List<HashMap<String, Integer>> assignments, int[] results, int low, int high,
+                           int threshold)
+      {
+         this.expr = expr;
+         this.assignments = assignments;
+         this.results = results;
+         this.low = low;
+         this.high = high;
+         this.threshold = threshold;
+      }
+
+      @Override
+      protected void compute()
+      {
+         if (this.high - this.low <= this.threshold) {
+            for (int i = this.low; i < this.high; i++) {
+               this.results[i] = this.expr.evaluate(this.assignments.get(i));
+            }
+         }
+         else {
+            int mid = (this.low + this.high) >>> 1;
+            invokeAll(new EvaluateTask(this.expr, this.assignments, this.results, this.low, mid, this.threshold),
+                      new EvaluateTask(this.expr, this.assignments, this.results, mid, this.high, this.threshold));
+         }
+      }
+   }
+
+   /**
+    * Evaluates the expression given assignments of values to variables, enforcing limits on the work done.
+    * Evaluation takes one step for every path from this node to another node, so a subtree shared by
+    * several parents is counted once per parent. That is the size of the expression, which is counted
+    * when the tree is built and checked here before any work is done.
+    * @param assignments a HashMap from Strings (variable names) to Integers (values).
+    * @param budget the limits on the depth of the tree and the number of evaluation steps
+    * @return the result of evaluating the expression with the given variable assignments
+    * @throws BudgetExceededException if the expression exceeds a limit of budget
+    */
+   public int evaluate(HashMap<String, Integer> assignments, EvaluationBudget budget)
+   {
+      budget.checkDepth(height());
+      budget.checkSteps(size());
+      return evaluate(assignments);
+   }
+
+   /**
+    * @return the number of nodes in this expression, counting a shared subtree once per parent and
+    *         saturating at Integer.MAX_VALUE
+    */
+   public abstract int size();
+
+   /**
+    * @return the number of nodes on the longest path from this expression to an operand, including both
+    */
+   public abstract int height();
+
    /**
     * @return a Set of the variables contained in this expression
     */
    public abstract Set<String> getVariables();
 
+   /**
+    * @return the value of this expression if it is an integer operand, otherwise null
+    */
+   public Integer getConstant()
+   {
+      return null;
+   }
+
+   /**
+    * @return the name of the variable if this expression is a variable operand, otherwise null
+    */
+   public String getVariable()
+   {
+      return null;
+   }
+
+   /**
+    * @return a string representing the operator, or null if this expression is an operand
+    */
+   public String getOperator()
+   {
+      return null;
+   }
+
+   /**
+    * @return the left operand of the operator, or null if this expression is an operand
+    */
+   public Expression getLeft()
+   {
+      return null;
+   }
+
+   /**
+    * @return the right operand of the operator, or null if this expression is an operand
+    */
+   public Expression getRight()
+   {
+      return null;
+   }
+
+   /**
+    * @return true if this is an operator whose operands can be swapped without changing its value
+    */
+   public boolean isCommutative()
+   {
+      return false;
+   }
+
+   /**
+    * Applies the operator of this expression to two values
+    * @param left the value of the left operand
+    * @param right the value of the right operand
+    * @return the result of the operator
+    * @throws UnsupportedOperationException if this expression is an operand
+    */
+   public int apply(int left, int right)
+   {
+      throw new UnsupportedOperationException(toInfix() + " is not an operator");
+   }
+
    @Override
    public abstract boolean equals(Object obj);
 
+   /**
+    * @return a 64-bit structural fingerprint, computed once when the expression is created,
+    *         that is equal for all logically equivalent expressions
+    */
+   public abstract long fingerprint();
+
+   /**
+    * @return a hash code derived from the fingerprint, so equivalent expressions can be used as keys in hash maps
+    */
+   @Override
+   public int hashCode()
+   {
+      long fp = fingerprint();
+      return (int) (fp ^ (fp >>> 32));
+   }
+
+   /**
+    * @return a new Expression equal to this one, but with the operands of every sum and product
+    *         ordered by fingerprint
+    */
+   public abstract Expression canonicalize();
+
+   /**
+    * Scrambles the bits of a value (the SplitMix64 finalizer) for use in fingerprints
+    * @param z the value to scramble
+    * @return the scrambled value
+    */
+   protected static long mix(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return z ^ (z >>> 31);
+   }
+
    /**
     * Prints the expression as a tree in DOT format for visualization
     * @param filename the name of the output file
     */
    public void drawExpression(String filename) throws IOException
+   {
+      drawExpression(filename, new IdentityHashMap<Expression, String>());
+   }
+
+   /**
+    * Prints the expression as a tree in DOT format for visualization, with extra lines in the labels of some nodes
+    * @param filename the name of the output file
+    * @param annotations a map from nodes of this expression to text shown below their labels
+    */
+   public void drawExpression(String filename, IdentityHashMap<Expression, String> annotations) throws IOException
    {
       BufferedWriter bw = null;
       FileWriter fw = new FileWriter(filename);
@@ -185,7 +429,7 @@ public abstract class Expression
       
       bw.write("graph Expression {\n");
       
-      drawExprHelper(bw);
+      drawExprHelper(bw, annotations);
       
       bw.write("}\n");
       
@@ -196,8 +440,28 @@ public abstract class Expression
    /**
     * Recursively prints the vertices and edges of the expression tree for visualization
     * @param bw the BufferedWriter to write to
+    * @param annotations a map from nodes to text shown below their labels
+    */
+   protected abstract void drawExprHelper(BufferedWriter bw, IdentityHashMap<Expression, String> annotations) throws IOException;
+
+   /**
+    * @return the identifier of this node in the DOT output, derived from its identity hash code
+    */
+   String nodeId()
+   {
+      return "node" + System.identityHashCode(this);
+   }
+
+   /**
+    * @param text the label of this node
+    * @param annotations a map from nodes to text shown below their labels
+    * @return text, followed by the annotation of this node on a new line if it has one
     */
-   protected abstract void drawExprHelper(BufferedWriter bw) throws IOException;
+   protected String annotate(String text, IdentityHashMap<Expression, String> annotations)
+   {
+      String annotation = annotations.get(this);
+      return annotation == null ? text : text + "\\n" + annotation;
+   }
 }
 
 /**
@@ -205,6 +469,21 @@ public abstract class Expression
  */
 abstract class Operand extends Expression
 {
+   /**
+    * @return 1, the number of nodes in an operand
+    */
+   public int size()
+   {
+      return 1;
+   }
+
+   /**
+    * @return 1, the height of an operand
+    */
+   public int height()
+   {
+      return 1;
+   }
 }
 
 /**
@@ -212,7 +491,8 @@ abstract class Operand extends Expression
  */
 class IntegerOperand extends Operand
 {
-   protected int operand;
+   protected final int operand;
+   private final long fingerprint;
 
    /**
     * Create the expression
@@ -221,6 +501,7 @@ class IntegerOperand extends Operand
    public IntegerOperand(int operand)
    {
       this.operand = operand;
+      this.fingerprint = mix(0x9e3779b97f4a7c15L + operand);
    }
 
    /**
@@ -270,6 +551,15 @@ class IntegerOperand extends Operand
       return this.operand;
    }
 
+   /**
+    * @return the integer value this expression represents
+    */
+   @Override
+   public Integer getConstant()
+   {
+      return this.operand;
+   }
+
    /**
     * @return a Set of the variables contained in this expression
     */
@@ -294,13 +584,30 @@ class IntegerOperand extends Operand
       return io.operand == this.operand;
    }   
 
+   /**
+    * @return a 64-bit structural fingerprint of this expression
+    */
+   public long fingerprint()
+   {
+      return this.fingerprint;
+   }
+
+   /**
+    * @return this expression, which is already canonical
+    */
+   public Expression canonicalize()
+   {
+      return this;
+   }
+
    /**
     * Recursively prints the vertices and edges of the expression tree for visualization
     * @param bw the BufferedWriter to write to
+    * @param annotations a map from nodes to text shown below their labels
     */
-   protected void drawExprHelper(BufferedWriter bw) throws IOException
+   protected void drawExprHelper(BufferedWriter bw, IdentityHashMap<Expression, String> annotations) throws IOException
    {
-      bw.write("\tnode"+hashCode()+"[label="+operand+"];\n");
+      bw.write("\t"+nodeId()+"[label=\""+annotate(""+operand, annotations)+"\"];\n");
    }
 }
 
@@ -309,7 +616,8 @@ class IntegerOperand extends Operand
  */
 class VariableOperand extends Operand
 {
-   protected String variable;
+   protected final String variable;
+   private final long fingerprint;
 
    /**
     * Create the expression
@@ -318,6 +626,7 @@ class VariableOperand extends Operand
    public VariableOperand(String variable)
    {
       this.variable = variable;
+      this.fingerprint = mix(0x632be59bd9b4e019L + variable.hashCode());
    }
 
    /**
@@ -367,6 +676,15 @@ class VariableOperand extends Operand
       return assignments.get(this.variable);
    }
 
+   /**
+    * @return the variable name contained with this expression
+    */
+   @Override
+   public String getVariable()
+   {
+      return this.variable;
+   }
+
    /**
     * @return a Set of the variables contained in this expression
     */
@@ -393,13 +711,30 @@ class VariableOperand extends Operand
       return vo.variable.equals(this.variable);
    }   
 
+   /**
+    * @return a 64-bit structural fingerprint of this expression
+    */
+   public long fingerprint()
+   {
+      return this.fingerprint;
+   }
+
+   /**
+    * @return this expression, which is already canonical
+    */
+   public Expression canonicalize()
+   {
+      return this;
+   }
+
    /**
     * Recursively prints the vertices and edges of the expression tree for visualization
     * @param bw the BufferedWriter to write to
+    * @param annotations a map from nodes to text shown below their labels
     */
-   protected void drawExprHelper(BufferedWriter bw) throws IOException
+   protected void drawExprHelper(BufferedWriter bw, IdentityHashMap<Expression, String> annotations) throws IOException
    {
-      bw.write("\tnode"+hashCode()+"[label="+variable+"];\n");
+      bw.write("\t"+nodeId()+"[label=\""+annotate(variable, annotations)+"\"];\n");
    }   
 }
 
@@ -408,38 +743,162 @@ class VariableOperand extends Operand
  */
 abstract class OperatorExpression extends Expression
 {
-   protected Expression left;
-   protected Expression right;
+   protected final Expression left;
+   protected final Expression right;
+   private final String operator;
+   private final boolean commutative;
+   private final long fingerprint;
+   private final int size;
+   private final int height;
 
    /**
     * Create the expression
     * @param left the expression representing the left operand
     * @param right the expression representing the right operand
+    * @param operator the token representing the operator
+    * @param commutative true if the operands can be swapped without changing the value of the expression
     */
-   public OperatorExpression(Expression left, Expression right)
+   protected OperatorExpression(Expression left, Expression right, String operator, boolean commutative)
    {
       this.left = left;
       this.right = right;
+      this.operator = operator;
+      this.commutative = commutative;
+      this.size = (int) Math.min(1L + left.size() + right.size(), Integer.MAX_VALUE);
+      this.height = 1 + Math.max(left.height(), right.height());
+      long l = left.fingerprint();
+      long r = right.fingerprint();
+      if (commutative && Long.compareUnsigned(l, r) > 0) {
+         long t = l;
+         l = r;
+         r = t;
+      }
+      this.fingerprint = mix(mix(operator.hashCode() * 0x9e3779b97f4a7c15L ^ l) + r);
    }
 
    /**
     * @return a string representing the operator
     */
-   protected abstract String getOperator();     
+   @Override
+   public final String getOperator()
+   {
+      return this.operator;
+   }
+
+   /**
+    * @return true if the operands can be swapped without changing the value of the expression
+    */
+   @Override
+   public final boolean isCommutative()
+   {
+      return this.commutative;
+   }
+
+   /**
+    * @return the expression representing the left operand
+    */
+   @Override
+   public final Expression getLeft()
+   {
+      return this.left;
+   }
+
+   /**
+    * @return the expression representing the right operand
+    */
+   @Override
+   public final Expression getRight()
+   {
+      return this.right;
+   }
+
+   /**
+    * Evaluates the expression given assignments of values to variables.
+    * @param assignments a HashMap from Strings (variable names) to Integers (values).
+    * @return the result of evaluating the expression with the given variable assignments
+    */
+   public int evaluate(HashMap<String, Integer> assignments)
+   {
+      return apply(this.left.evaluate(assignments), this.right.evaluate(assignments));
+   }
+
+   /**
+    * @return a 64-bit structural fingerprint of this expression
+    */
+   public long fingerprint()
+   {
+      return this.fingerprint;
+   }
+
+   /**
+    * @return the number of nodes in this expression, counting a shared subtree once per parent and
+    *         saturating at Integer.MAX_VALUE
+    */
+   public int size()
+   {
+      return this.size;
+   }
+
+   /**
+    * @return the number of nodes on the longest path from this expression to an operand, including both
+    */
+   public int height()
+   {
+      return this.height;
+   }
+
+   /**
+    * Compares the operands of two expressions with the same operator. Mismatched fingerprints are
+    * rejected immediately; otherwise commutative operands are matched up by fingerprint, so only
+    * one operand order has to be compared recursively.
+    * @param e an expression with the same operator as this one
+    * @return true if the operands of e are logically equivalent to the operands of this expression
+    */
+   protected boolean operandsEqual(OperatorExpression e)
+   {
+      if (e.fingerprint != this.fingerprint) {
+         return false;
+      }
+      if (!isCommutative()) {
+         return e.left.equals(this.left) && e.right.equals(this.right);
+      }
+      if (this.left.fingerprint() == this.right.fingerprint()) {
+         // The fingerprints cannot tell the operands apart, so either order may match
+         return e.left.equals(this.left) && e.right.equals(this.right) || e.left.equals(this.right) && e.right.equals(this.left);
+      }
+      if (e.left.fingerprint() == this.left.fingerprint()) {
+         return e.left.equals(this.left) && e.right.equals(this.right);
+      }
+      return e.left.equals(this.right) && e.right.equals(this.left);
+   }
+
+   /**
+    * @return the canonical forms of the operands, swapped if this is commutative and they are out of fingerprint order
+    */
+   protected Expression[] canonicalOperands()
+   {
+      Expression l = this.left.canonicalize();
+      Expression r = this.right.canonicalize();
+      if (isCommutative() && Long.compareUnsigned(l.fingerprint(), r.fingerprint()) > 0) {
+         return new Expression[] {r, l};
+      }
+      return new Expression[] {l, r};
+   }
    
    /**
     * Recursively prints the vertices and edges of the expression tree for visualization
     * @param bw the BufferedWriter to write to
+    * @param annotations a map from nodes to text shown below their labels
     */
-   protected void drawExprHelper(BufferedWriter bw) throws IOException
+   protected void drawExprHelper(BufferedWriter bw, IdentityHashMap<Expression, String> annotations) throws IOException
    {
-      String rootID = "\tnode"+hashCode();
-      bw.write(rootID+"[label=\""+getOperator()+"\"];\n");
+      String rootID = "\t"+nodeId();
+      bw.write(rootID+"[label=\""+annotate(getOperator(), annotations)+"\"];\n");
 
-      bw.write(rootID + " -- node" + left.hashCode() + ";\n");
-      bw.write(rootID + " -- node" + right.hashCode() + ";\n");
-      left.drawExprHelper(bw);
-      right.drawExprHelper(bw);
+      bw.write(rootID + " -- " + left.nodeId() + ";\n");
+      bw.write(rootID + " -- " + right.nodeId() + ";\n");
+      left.drawExprHelper(bw, annotations);
+      right.drawExprHelper(bw, annotations);
    }
 
    /**
@@ -495,15 +954,7 @@ class SumExpression extends OperatorExpression
     */
    public SumExpression(Expression left, Expression right)
    {
-      super(left, right);
-   }
-
-   /**
-    * @return a string representing the operand
-    */
-   protected String getOperator()
-   {
-      return "+";
+      super(left, right, "+", true);
    }
 
    /**
@@ -530,14 +981,14 @@ class SumExpression extends OperatorExpression
    }
 
    /**
-    * Evaluates the expression given assignments of values to variables.
-    * @param assignments a HashMap from Strings (variable names) to Integers (values).
-    * @return the result of evaluating the expression with the given variable assignments
+    * @param left the value of the left operand
+    * @param right the value of the right operand
+    * @return left + right
     */
-   public int evaluate(HashMap<String, Integer> assignments)
+   @Override
+   public int apply(int left, int right)
    {
-      //////REPLACE WITH YOUR CODE
-      return this.left.evaluate(assignments) + this.right.evaluate(assignments);
+      return left + right;
    }
 
    /**
@@ -552,7 +1003,16 @@ class SumExpression extends OperatorExpression
          return false;
       }
       SumExpression e = (SumExpression) obj;
-      return e.left.equals(this.left) && e.right.equals(this.right) || e.left.equals(this.right) && e.right.equals(this.left);
+      return operandsEqual(e);
+   }
+
+   /**
+    * @return a new Expression equal to this one, with operands in canonical order
+    */
+   public Expression canonicalize()
+   {
+      Expression[] operands = canonicalOperands();
+      return new SumExpression(operands[0], operands[1]);
    }   
 }
 
@@ -568,15 +1028,7 @@ class DifferenceExpression extends OperatorExpression
     */
    public DifferenceExpression(Expression left, Expression right)
    {
-      super(left, right);
-   }
-
-   /**
-    * @return a string representing the operand
-    */
-   protected String getOperator()
-   {
-      return "-";
+      super(left, right, "-", false);
    }
 
    /**
@@ -603,14 +1055,14 @@ class DifferenceExpression extends OperatorExpression
    }
 
    /**
-    * Evaluates the expression given assignments of values to variables.
-    * @param assignments a HashMap from Strings (variable names) to Integers (values).
-    * @return the result of evaluating the expression with the given variable assignments
+    * @param left the value of the left operand
+    * @param right the value of the right operand
+    * @return left - right
     */
-   public int evaluate(HashMap<String, Integer> assignments)
+   @Override
+   public int apply(int left, int right)
    {
-      //////REPLACE WITH YOUR CODE
-      return this.left.evaluate(assignments) - this.right.evaluate(assignments);
+      return left - right;
    }
 
    /**
@@ -625,7 +1077,16 @@ class DifferenceExpression extends OperatorExpression
          return false;
       }
       DifferenceExpression e = (DifferenceExpression) obj;
-      return e.left.equals(this.left) && e.right.equals(this.right);
+      return operandsEqual(e);
+   }
+
+   /**
+    * @return a new Expression equal to this one, with operands in canonical order
+    */
+   public Expression canonicalize()
+   {
+      Expression[] operands = canonicalOperands();
+      return new DifferenceExpression(operands[0], operands[1]);
    }      
 }
 
@@ -641,15 +1102,7 @@ class ProductExpression extends OperatorExpression
     */
    public ProductExpression(Expression left, Expression right)
    {
-      super(left, right);
-   }
-
-   /**
-    * @return a string representing the operand
-    */
-   protected String getOperator()
-   {
-      return "*";
+      super(left, right, "*", true);
    }
 
    /**
@@ -679,14 +1132,14 @@ class ProductExpression extends OperatorExpression
    }   
 
    /**
-    * Evaluates the expression given assignments of values to variables.
-    * @param assignments a HashMap from Strings (variable names) to Integers (values).
-    * @return the result of evaluating the expression with the given variable assignments
+    * @param left the value of the left operand
+    * @param right the value of the right operand
+    * @return left * right
     */
-   public int evaluate(HashMap<String, Integer> assignments)
+   @Override
+   public int apply(int left, int right)
    {
-      //////REPLACE WITH YOUR CODE
-      return this.left.evaluate(assignments) * this.right.evaluate(assignments);
+      return left * right;
    }
 
    /**
@@ -701,7 +1154,16 @@ class ProductExpression extends OperatorExpression
          return false;
       }
       ProductExpression e = (ProductExpression) obj;
-      return e.left.equals(this.left) && e.right.equals(this.right) || e.left.equals(this.right) && e.right.equals(this.left);
+      return operandsEqual(e);
+   }
+
+   /**
+    * @return a new Expression equal to this one, with operands in canonical order
+    */
+   public Expression canonicalize()
+   {
+      Expression[] operands = canonicalOperands();
+      return new ProductExpression(operands[0], operands[1]);
    }      
 }
 
@@ -717,15 +1179,7 @@ class QuotientExpression extends OperatorExpression
     */
    public QuotientExpression(Expression left, Expression right)
    {
-      super(left, right);
-   }
-
-   /**
-    * @return a string representing the operand
-    */
-   protected String getOperator()
-   {
-      return "/";
+      super(left, right, "/", false);
    }
 
    /**
@@ -752,14 +1206,14 @@ class QuotientExpression extends OperatorExpression
    }
 
    /**
-    * Evaluates the expression given assignments of values to variables.
-    * @param assignments a HashMap from Strings (variable names) to Integers (values).
-    * @return the numerica result of evaluating the expression with the given variable assignments
+    * @param left the value of the left operand
+    * @param right the value of the right operand
+    * @return left / right
     */
-   public int evaluate(HashMap<String, Integer> assignments)
+   @Override
+   public int apply(int left, int right)
    {
-      //////REPLACE WITH YOUR CODE
-      return this.left.evaluate(assignments) / this.right.evaluate(assignments);
+      return left / right;
    }
 
    /**
@@ -774,6 +1228,15 @@ class QuotientExpression extends OperatorExpression
          return false;
       }
       QuotientExpression e = (QuotientExpression) obj;
-      return e.left.equals(this.left) && e.right.equals(this.right);
+      return operandsEqual(e);
+   }
+
+   /**
+    * @return a new Expression equal to this one, with operands in canonical order
+    */
+   public Expression canonicalize()
+   {
+      Expression[] operands = canonicalOperands();
+      return new QuotientExpression(operands[0], operands[1]);
    }      
 }
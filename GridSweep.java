@@ -0,0 +1,195 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Evaluates an expression over every point of a grid, the Cartesian product
+ * of a range for each variable, in nested loops over the variables in a given
+ * order. Each subexpression is computed in the outermost loop where one of its
+ * variables changes, so work that only depends on outer variables is not
+ * repeated for every iteration of the inner loops.
+ */
+public class GridSweep
+{
+   /**
+    * A class representing the values a variable takes during a sweep: start, start + step, ... up to end
+    */
+   public static class Range
+   {
+      private final int start;
+      private final int end;
+      private final int step;
+
+      /**
+       * Create the range
+       * @param start the first value
+       * @param end the largest value that may be taken
+       * @param step the positive distance between consecutive values
+       */
+      public Range(int start, int end, int step)
+      {
+         if (step < 1) {
+            throw new IllegalArgumentException("Range step must be positive");
+         }
+         this.start = start;
+         this.end = end;
+         this.step = step;
+      }
+
+      /**
+       * @return the first value
+       */
+      public int getStart()
+      {
+         return this.start;
+      }
+
+      /**
+       * @return the largest value that may be taken
+       */
+      public int getEnd()
+      {
+         return this.end;
+      }
+
+      /**
+       * @return the distance between consecutive values
+       */
+      public int getStep()
+      {
+         return this.step;
+      }
+
+      /**
+       * @return true if the range has no values, because end is less than start
+       */
+      public boolean isEmpty()
+      {
+         return this.end < this.start;
+      }
+   }
+
+   private final EvaluationPlan plan;
+   private final Range[] ranges;
+   private final int[] loopSlots;
+   private final int[][] levels;
+
+   /**
+    * Create the sweep
+    * @param expr the expression to evaluate
+    * @param order the variables to loop over, from the outermost loop to the innermost; must contain every variable
+    *              of expr exactly once and nothing else, so the number of results is always the number of points
+    *              of the grid over the variables of expr
+    * @param ranges a Map from each variable in order to the values it takes
+    * @throws IllegalArgumentException if order repeats a name, misses a variable of expr or names anything else,
+    *                                  or if a variable has no range
+    */
+   public GridSweep(Expression expr, List<String> order, Map<String, Range> ranges)
+   {
+      this.plan = EvaluationPlan.compile(Collections.singletonList(expr));
+      this.ranges = new Range[order.size()];
+      this.loopSlots = new int[order.size()];
+      HashSet<String> seen = new HashSet<String>();
+      HashSet<String> variables = new HashSet<String>(List.of(this.plan.variables));
+      for (int i = 0; i < order.size(); i++) {
+         String name = order.get(i);
+         if (!seen.add(name)) {
+            throw new IllegalArgumentException("Variable " + name + " appears more than once in the iteration order");
+         }
+         // A loop over a name the expression does not use would only repeat every result
+         if (!variables.contains(name)) {
+            throw new IllegalArgumentException("Variable " + name + " does not appear in the expression");
+         }
+         this.ranges[i] = ranges.get(name);
+         if (this.ranges[i] == null) {
+            throw new IllegalArgumentException("No range given for variable " + name);
+         }
+      }
+
+      // Level 0 is computed once before the loops; level k once per iteration of loop k - 1
+      int[] instructionLevels = new int[this.plan.kinds.length];
+      List<List<Integer>> byLevel = new ArrayList<List<Integer>>();
+      for (int k = 0; k <= order.size(); k++) {
+         byLevel.add(new ArrayList<Integer>());
+      }
+      for (int i = 0; i < instructionLevels.length; i++) {
+         int kind = this.plan.kinds[i];
+         if (kind == EvaluationPlan.VARIABLE) {
+            int slot = this.plan.lefts[i];
+            int loop = order.indexOf(this.plan.variables[slot]);
+            if (loop == -1) {
+               throw new IllegalArgumentException("Variable " + this.plan.variables[slot] + " is missing from the iteration order");
+            }
+            this.loopSlots[loop] = slot;
+            instructionLevels[i] = loop + 1;
+         }
+         else if (kind != EvaluationPlan.CONSTANT) {
+            instructionLevels[i] = Math.max(instructionLevels[this.plan.lefts[i]], instructionLevels[this.plan.rights[i]]);
+         }
+         byLevel.get(instructionLevels[i]).add(i);
+      }
+      this.levels = new int[byLevel.size()][];
+      for (int k = 0; k < this.levels.length; k++) {
+         List<Integer> level = byLevel.get(k);
+         this.levels[k] = new int[level.size()];
+         for (int j = 0; j < level.size(); j++) {
+            this.levels[k][j] = level.get(j);
+         }
+      }
+   }
+
+   /**
+    * Evaluates the expression at every point of the grid. Results are produced with the
+    * innermost variable changing fastest. Nothing is evaluated if any range is empty,
+    * and each hoisted subexpression is only computed when its loop actually runs.
+    * @param consumer the function receiving each result
+    */
+   public void sweep(IntConsumer consumer)
+   {
+      for (Range r : this.ranges) {
+         if (r.isEmpty()) {
+            return;
+         }
+      }
+      int[] values = new int[this.plan.kinds.length];
+      int[] variableValues = new int[this.plan.variables.length];
+      compute(0, values, variableValues);
+      loop(0, values, variableValues, consumer);
+   }
+
+   private void loop(int depth, int[] values, int[] variableValues, IntConsumer consumer)
+   {
+      if (depth == this.ranges.length) {
+         consumer.accept(values[this.plan.roots[0]]);
+         return;
+      }
+      Range r = this.ranges[depth];
+      for (long v = r.start; v <= r.end; v += r.step) {
+         variableValues[this.loopSlots[depth]] = (int) v;
+         compute(depth + 1, values, variableValues);
+         loop(depth + 1, values, variableValues, consumer);
+      }
+   }
+
+   private void compute(int level, int[] values, int[] variableValues)
+   {
+      for (int i : this.levels[level]) {
+         values[i] = this.plan.step(i, values, variableValues);
+      }
+   }
+
+   /**
+    * Evaluates the expression at every point of the grid, keeping only aggregate statistics.
+    * @return the count, minimum, maximum, sum and average of the results
+    */
+   public IntSummaryStatistics summarize()
+   {
+      IntSummaryStatistics stats = new IntSummaryStatistics();
+      sweep(stats);
+      return stats;
+   }
+}
@@ -0,0 +1,321 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A static analysis that computes the interval of values every node of an
+ * expression tree can take, given known ranges for its variables. Nodes whose
+ * int arithmetic may overflow and quotients whose divisor interval contains
+ * zero are flagged, so unsafe expressions can be rejected before evaluation.
+ */
+public class IntervalAnalysis
+{
+   /**
+    * The largest number of flagged nodes listed in the message of requireSafe
+    */
+   public static final int MAX_REPORTED_NODES = 10;
+
+   /**
+    * A class representing a closed interval of int values
+    */
+   public static class Interval
+   {
+      /**
+       * The interval of every int value
+       */
+      public static final Interval FULL = new Interval(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+      private final int low;
+      private final int high;
+
+      /**
+       * Create the interval
+       * @param low the smallest value in the interval
+       * @param high the largest value in the interval
+       */
+      public Interval(int low, int high)
+      {
+         if (low > high) {
+            throw new IllegalArgumentException("Interval lower bound " + low + " is greater than upper bound " + high);
+         }
+         this.low = low;
+         this.high = high;
+      }
+
+      /**
+       * @return the smallest value in the interval
+       */
+      public int getLow()
+      {
+         return this.low;
+      }
+
+      /**
+       * @return the largest value in the interval
+       */
+      public int getHigh()
+      {
+         return this.high;
+      }
+
+      /**
+       * @param value the value to look for
+       * @return true if value lies within the interval
+       */
+      public boolean contains(int value)
+      {
+         return this.low <= value && value <= this.high;
+      }
+
+      /**
+       * @return a String that represents the interval as [low, high]
+       */
+      @Override
+      public String toString()
+      {
+         return "[" + this.low + ", " + this.high + "]";
+      }
+   }
+
+   private final Map<String, Interval> ranges;
+   private final IdentityHashMap<Expression, Interval> intervals = new IdentityHashMap<Expression, Interval>();
+   private final IdentityHashMap<Expression, Integer> positions = new IdentityHashMap<Expression, Integer>();
+   private final List<Expression> nodes = new ArrayList<Expression>();
+   private final List<Expression> overflows = new ArrayList<Expression>();
+   private final List<Expression> divisionsByZero = new ArrayList<Expression>();
+   private final Set<Expression> overflowSet = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+   private final Set<Expression> divisionByZeroSet = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+
+   private IntervalAnalysis(Map<String, Interval> ranges)
+   {
+      this.ranges = ranges;
+   }
+
+   /**
+    * Analyzes an expression in a single pass over its nodes.
+    * @param expr the expression to analyze
+    * @param ranges a Map from variable names to the interval of values they may take;
+    *        variables without a range may take any int value
+    * @return the per-node results of the analysis
+    */
+   public static IntervalAnalysis analyze(Expression expr, Map<String, Interval> ranges)
+   {
+      IntervalAnalysis analysis = new IntervalAnalysis(ranges);
+      analysis.analyzeNode(expr);
+      return analysis;
+   }
+
+   private Interval analyzeNode(Expression expr)
+   {
+      Interval result = this.intervals.get(expr);
+      if (result != null) {
+         return result;
+      }
+      Integer constant = expr.getConstant();
+      String variable = expr.getVariable();
+      if (constant != null) {
+         result = new Interval(constant, constant);
+      }
+      else if (variable != null) {
+         result = this.ranges.get(variable);
+         if (result == null) {
+            result = Interval.FULL;
+         }
+      }
+      else {
+         String op = expr.getOperator();
+         Interval l = analyzeNode(expr.getLeft());
+         Interval r = analyzeNode(expr.getRight());
+         long[] bounds = {Long.MAX_VALUE, Long.MIN_VALUE};
+         if (op.equals("+")) {
+            widen(bounds, (long) l.low + r.low);
+            widen(bounds, (long) l.high + r.high);
+         }
+         else if (op.equals("-")) {
+            widen(bounds, (long) l.low - r.high);
+            widen(bounds, (long) l.high - r.low);
+         }
+         else if (op.equals("*")) {
+            widen(bounds, (long) l.low * r.low);
+            widen(bounds, (long) l.low * r.high);
+            widen(bounds, (long) l.high * r.low);
+            widen(bounds, (long) l.high * r.high);
+         }
+         else if (op.equals("/")) {
+            if (r.contains(0)) {
+               this.divisionsByZero.add(expr);
+               this.divisionByZeroSet.add(expr);
+            }
+            // Division is monotonic on each side of zero, so the extremes lie on the corners
+            if (r.low < 0) {
+               widenQuotient(bounds, l, r.low, Math.min(r.high, -1));
+            }
+            if (r.high > 0) {
+               widenQuotient(bounds, l, Math.max(r.low, 1), r.high);
+            }
+         }
+         else {
+            throw new IllegalArgumentException("No interval arithmetic for operator " + op);
+         }
+         if (bounds[0] > bounds[1]) {
+            // The divisor is always zero, so the node never produces a value
+            result = Interval.FULL;
+         }
+         else if (bounds[0] < Integer.MIN_VALUE || bounds[1] > Integer.MAX_VALUE) {
+            this.overflows.add(expr);
+            this.overflowSet.add(expr);
+            result = Interval.FULL;
+         }
+         else {
+            result = new Interval((int) bounds[0], (int) bounds[1]);
+         }
+      }
+      this.intervals.put(expr, result);
+      this.positions.put(expr, this.nodes.size());
+      this.nodes.add(expr);
+      return result;
+   }
+
+   private static void widen(long[] bounds, long value)
+   {
+      bounds[0] = Math.min(bounds[0], value);
+      bounds[1] = Math.max(bounds[1], value);
+   }
+
+   private static void widenQuotient(long[] bounds, Interval l, long divisorLow, long divisorHigh)
+   {
+      widen(bounds, l.low / divisorLow);
+      widen(bounds, l.low / divisorHigh);
+      widen(bounds, l.high / divisorLow);
+      widen(bounds, l.high / divisorHigh);
+   }
+
+   /**
+    * @param node a node of the analyzed expression
+    * @return the interval of values node can take, or null if node is not part of the analyzed expression
+    */
+   public Interval getInterval(Expression node)
+   {
+      return this.intervals.get(node);
+   }
+
+   /**
+    * @param node a node of the analyzed expression
+    * @return true if evaluating node may overflow an int
+    */
+   public boolean mayOverflow(Expression node)
+   {
+      return this.overflowSet.contains(node);
+   }
+
+   /**
+    * @param node a node of the analyzed expression
+    * @return true if node is a quotient whose divisor may be zero
+    */
+   public boolean mayDivideByZero(Expression node)
+   {
+      return this.divisionByZeroSet.contains(node);
+   }
+
+   /**
+    * @return the nodes that may overflow an int, in evaluation order
+    */
+   public List<Expression> getOverflows()
+   {
+      return Collections.unmodifiableList(this.overflows);
+   }
+
+   /**
+    * @return the quotients whose divisor may be zero, in evaluation order
+    */
+   public List<Expression> getDivisionsByZero()
+   {
+      return Collections.unmodifiableList(this.divisionsByZero);
+   }
+
+   /**
+    * @return true if the expression can be evaluated without overflow or division by zero
+    */
+   public boolean isSafe()
+   {
+      return this.overflows.isEmpty() && this.divisionsByZero.isEmpty();
+   }
+
+   /**
+    * Rejects an expression that was not proven safe.
+    * @throws IllegalArgumentException if a node may overflow or divide by zero
+    */
+   public void requireSafe()
+   {
+      if (!isSafe()) {
+         throw new IllegalArgumentException("Expression may fail at runtime: " + this);
+      }
+   }
+
+   /**
+    * @param node a node of the analyzed expression
+    * @return a short description of node: its operator, constant or variable, and its position in postfix order,
+    *         counting a shared subtree only where it first appears
+    */
+   private String describe(Expression node)
+   {
+      String label = node.getOperator() != null ? node.getOperator()
+                   : node.getVariable() != null ? node.getVariable() : "" + node.getConstant();
+      return "'" + label + "' at postfix position " + this.positions.get(node);
+   }
+
+   /**
+    * @return a summary of the flagged nodes, listing at most MAX_REPORTED_NODES of them
+    */
+   @Override
+   public String toString()
+   {
+      if (isSafe()) {
+         return "safe";
+      }
+      StringBuilder sb = new StringBuilder();
+      sb.append(this.overflows.size()).append(" possible overflow(s), ")
+        .append(this.divisionsByZero.size()).append(" possible division(s) by zero");
+      int listed = 0;
+      for (Expression node : this.nodes) {
+         if (!mayOverflow(node) && !mayDivideByZero(node)) {
+            continue;
+         }
+         if (listed == MAX_REPORTED_NODES) {
+            sb.append("; ...");
+            break;
+         }
+         sb.append(listed == 0 ? ": " : "; ").append(describe(node));
+         if (mayOverflow(node)) {
+            sb.append(" may overflow");
+         }
+         if (mayDivideByZero(node)) {
+            sb.append(" may divide by zero");
+         }
+         listed++;
+      }
+      return sb.toString();
+   }
+
+   /**
+    * @return a String listing the interval of every node and any failures it may cause, one node per line in postfix order
+    */
+   public String report()
+   {
+      StringBuilder sb = new StringBuilder();
+      for (Expression node : this.nodes) {
+         sb.append(describe(node)).append(" in ").append(this.intervals.get(node));
+         if (mayOverflow(node)) {
+            sb.append(" may overflow");
+         }
+         if (mayDivideByZero(node)) {
+            sb.append(" may divide by zero");
+         }
+         sb.append("\n");
+      }
+      return sb.toString();
+   }
+}
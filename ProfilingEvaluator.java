@@ -0,0 +1,182 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * An evaluator that records, for every operator node of an expression, how
+ * often it is evaluated, the time spent in it and its subtree, and how many
+ * distinct values it produces. A node that is expensive but produces few
+ * distinct values is a good candidate for memoization or rewriting.
+ * A profiling evaluator is not thread-safe.
+ */
+public class ProfilingEvaluator
+{
+   /**
+    * The number of distinct values tracked per node before counting stops
+    */
+   public static final int MAX_DISTINCT_VALUES = 1024;
+
+   /**
+    * A class representing the statistics gathered for a single node
+    */
+   public static class NodeProfile
+   {
+      private long invocations;
+      private long totalNanos;
+      private final HashSet<Integer> values = new HashSet<Integer>();
+      private boolean saturated;
+
+      /**
+       * @return the number of times the node was evaluated
+       */
+      public long getInvocations()
+      {
+         return this.invocations;
+      }
+
+      /**
+       * @return the total time spent evaluating the node and its subtree, in nanoseconds
+       */
+      public long getTotalNanos()
+      {
+         return this.totalNanos;
+      }
+
+      /**
+       * @return the number of distinct values the node produced, at most MAX_DISTINCT_VALUES
+       */
+      public int getDistinctValues()
+      {
+         return this.values.size();
+      }
+
+      /**
+       * @return true if the node produced more than MAX_DISTINCT_VALUES distinct values, so getDistinctValues is a lower bound
+       */
+      public boolean isSaturated()
+      {
+         return this.saturated;
+      }
+
+      /**
+       * @return the number of distinct values, prefixed with ">" once it is only a lower bound
+       */
+      private String describeDistinctValues()
+      {
+         return (this.saturated ? ">" : "") + this.values.size();
+      }
+
+      private void record(long nanos, int value)
+      {
+         this.invocations++;
+         this.totalNanos += nanos;
+         if (this.values.size() < MAX_DISTINCT_VALUES) {
+            this.values.add(value);
+         }
+         else if (!this.saturated && !this.values.contains(value)) {
+            this.saturated = true;
+         }
+      }
+   }
+
+   private final Expression expr;
+   private final List<Expression> nodes = new ArrayList<Expression>();
+   private final IdentityHashMap<Expression, NodeProfile> profiles = new IdentityHashMap<Expression, NodeProfile>();
+
+   /**
+    * Create the evaluator
+    * @param expr the expression to profile
+    */
+   public ProfilingEvaluator(Expression expr)
+   {
+      this.expr = expr;
+      collect(expr);
+   }
+
+   private void collect(Expression e)
+   {
+      if (e.getOperator() != null && !this.profiles.containsKey(e)) {
+         this.nodes.add(e);
+         this.profiles.put(e, new NodeProfile());
+         collect(e.getLeft());
+         collect(e.getRight());
+      }
+   }
+
+   /**
+    * Evaluates the expression given assignments of values to variables, recording statistics for each operator node.
+    * @param assignments a HashMap from Strings (variable names) to Integers (values).
+    * @return the result of evaluating the expression with the given variable assignments
+    */
+   public int evaluate(HashMap<String, Integer> assignments)
+   {
+      return evaluateNode(this.expr, assignments);
+   }
+
+   private int evaluateNode(Expression e, HashMap<String, Integer> assignments)
+   {
+      if (e.getOperator() == null) {
+         return e.evaluate(assignments);
+      }
+      long start = System.nanoTime();
+      int value = e.apply(evaluateNode(e.getLeft(), assignments), evaluateNode(e.getRight(), assignments));
+      this.profiles.get(e).record(System.nanoTime() - start, value);
+      return value;
+   }
+
+   /**
+    * @param node an operator node of the profiled expression
+    * @return the statistics recorded for node, or null if it is not an operator node of the expression
+    */
+   public NodeProfile getProfile(Expression node)
+   {
+      return this.profiles.get(node);
+   }
+
+   /**
+    * Discards all recorded statistics
+    */
+   public void reset()
+   {
+      for (Expression node : this.nodes) {
+         this.profiles.put(node, new NodeProfile());
+      }
+   }
+
+   /**
+    * Prints the expression as a tree in DOT format, labelling each operator node with its statistics
+    * @param filename the name of the output file
+    */
+   public void drawProfile(String filename) throws IOException
+   {
+      IdentityHashMap<Expression, String> annotations = new IdentityHashMap<Expression, String>();
+      for (Expression node : this.nodes) {
+         NodeProfile p = this.profiles.get(node);
+         annotations.put(node, "calls=" + p.invocations + "\\ntime=" + p.totalNanos + "ns\\ndistinct=" + p.describeDistinctValues());
+      }
+      this.expr.drawExpression(filename, annotations);
+   }
+
+   /**
+    * Prints the statistics of every operator node as CSV, one node per line in prefix order.
+    * Nodes are identified by the same ids as in the output of drawProfile.
+    * @param filename the name of the output file
+    */
+   public void writeCsv(String filename) throws IOException
+   {
+      BufferedWriter bw = new BufferedWriter(new FileWriter(filename));
+      bw.write("node,operator,invocations,total_ns,mean_ns,distinct_values,distinct_saturated\n");
+      for (Expression node : this.nodes) {
+         NodeProfile p = this.profiles.get(node);
+         long mean = p.invocations == 0 ? 0 : p.totalNanos / p.invocations;
+         bw.write(node.nodeId() + "," + node.getOperator() + "," + p.invocations + "," + p.totalNanos + "," + mean + ","
+                  + p.getDistinctValues() + "," + p.saturated + "\n");
+      }
+      bw.close();
+   }
+}
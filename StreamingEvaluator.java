@@ -0,0 +1,267 @@
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+/**
+ * A stream processing stage that evaluates one expression for every assignment
+ * row it receives and publishes the results in order. Each row is evaluated as
+ * soon as it arrives, so no row waits for others; the batching happens in the
+ * demand instead, which is requested from upstream in chunks of at least half
+ * a subscriber buffer rather than one row at a time.
+ *
+ * Rows are only requested from upstream while there is at least one subscriber,
+ * and never more than the subscribers' result buffers have room for, so a slow
+ * subscriber slows down the publisher of rows without blocking its thread.
+ * When the last subscriber cancels, the upstream subscription is cancelled too.
+ */
+public class StreamingEvaluator implements Flow.Processor<HashMap<String, Integer>, Integer>
+{
+   private final ToIntFunction<HashMap<String, Integer>> evaluator;
+   private final SubmissionPublisher<Integer> publisher;
+   private final int requestThreshold;
+   private final AtomicInteger subscribers = new AtomicInteger();
+   private final AtomicLong outstanding = new AtomicLong();
+   private final AtomicLong rowsReceived = new AtomicLong();
+   private final AtomicLong resultsPublished = new AtomicLong();
+   private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<Flow.Subscription>();
+   private volatile long startTime;
+   private volatile long endTime;
+   private volatile boolean closed;
+
+   /**
+    * Create the stage, evaluating the expression tree directly
+    * @param expr the expression to evaluate for each row
+    */
+   public StreamingEvaluator(Expression expr)
+   {
+      this(expr::evaluate, Flow.defaultBufferSize(), ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Create the stage
+    * @param evaluator the function computing the result for a row, such as Expression::evaluate or a compiled form of it
+    * @param bufferCapacity the maximum number of results buffered for each subscriber
+    * @param executor the executor delivering results to subscribers
+    */
+   public StreamingEvaluator(ToIntFunction<HashMap<String, Integer>> evaluator, int bufferCapacity, Executor executor)
+   {
+      this.evaluator = evaluator;
+      this.publisher = new SubmissionPublisher<Integer>(executor, bufferCapacity);
+      this.requestThreshold = Math.max(1, this.publisher.getMaxBufferCapacity() / 2);
+   }
+
+   /**
+    * Adds a subscriber to the results. Rows are first requested from upstream once a subscriber exists.
+    * @param subscriber the subscriber
+    */
+   @Override
+   public void subscribe(Flow.Subscriber<? super Integer> subscriber)
+   {
+      this.subscribers.incrementAndGet();
+      this.publisher.subscribe(new TrackedSubscriber(subscriber));
+      replenish();
+   }
+
+   /**
+    * A subscriber that tells the stage when it consumes a result or cancels its subscription
+    */
+   private class TrackedSubscriber implements Flow.Subscriber<Integer>
+   {
+      private final Flow.Subscriber<? super Integer> delegate;
+
+      private TrackedSubscriber(Flow.Subscriber<? super Integer> delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      @Override
+      public void onSubscribe(Flow.Subscription s)
+      {
+         this.delegate.onSubscribe(new Flow.Subscription() {
+            private boolean cancelled;
+
+            @Override
+            public void request(long n)
+            {
+               s.request(n);
+               replenish();
+            }
+
+            @Override
+            public void cancel()
+            {
+               s.cancel();
+               if (!this.cancelled) {
+                  this.cancelled = true;
+                  subscriberCancelled();
+               }
+            }
+         });
+      }
+
+      @Override
+      public void onNext(Integer item)
+      {
+         this.delegate.onNext(item);
+         replenish();
+      }
+
+      @Override
+      public void onError(Throwable throwable)
+      {
+         this.delegate.onError(throwable);
+      }
+
+      @Override
+      public void onComplete()
+      {
+         this.delegate.onComplete();
+      }
+   }
+
+   private void subscriberCancelled()
+   {
+      if (this.subscribers.decrementAndGet() == 0 && !this.closed) {
+         markClosed();
+         Flow.Subscription s = this.subscription.get();
+         if (s != null) {
+            s.cancel();
+         }
+         this.publisher.close();
+      }
+   }
+
+   /**
+    * Stops accepting rows and fixes the end of the interval getThroughput measures
+    */
+   private void markClosed()
+   {
+      this.endTime = System.nanoTime();
+      this.closed = true;
+   }
+
+   /**
+    * Requests as many rows from upstream as the fullest subscriber buffer has room for,
+    * counting rows already requested, once that is at least half a buffer
+    */
+   private void replenish()
+   {
+      Flow.Subscription s = this.subscription.get();
+      if (s == null || this.closed || this.subscribers.get() == 0) {
+         return;
+      }
+      while (true) {
+         long requested = this.outstanding.get();
+         long credit = this.publisher.getMaxBufferCapacity() - this.publisher.estimateMaximumLag() - requested;
+         if (credit < this.requestThreshold) {
+            return;
+         }
+         if (this.outstanding.compareAndSet(requested, requested + credit)) {
+            s.request(credit);
+            return;
+         }
+      }
+   }
+
+   /**
+    * Accepts the upstream subscription. The stage only has one upstream, so any later
+    * subscription is cancelled, as is one arriving after the stage has been closed.
+    * @param subscription the upstream subscription
+    */
+   @Override
+   public void onSubscribe(Flow.Subscription subscription)
+   {
+      if (this.closed || !this.subscription.compareAndSet(null, subscription)) {
+         subscription.cancel();
+         return;
+      }
+      replenish();
+   }
+
+   @Override
+   public void onNext(HashMap<String, Integer> row)
+   {
+      this.outstanding.decrementAndGet();
+      if (this.closed) {
+         return;
+      }
+      if (this.rowsReceived.getAndIncrement() == 0) {
+         this.startTime = System.nanoTime();
+      }
+      try {
+         this.publisher.submit(this.evaluator.applyAsInt(row));
+         this.resultsPublished.incrementAndGet();
+      }
+      catch (RuntimeException e) {
+         // Either the row could not be evaluated or the last subscriber cancelled meanwhile
+         if (!this.closed) {
+            markClosed();
+            this.subscription.get().cancel();
+            this.publisher.closeExceptionally(e);
+         }
+         return;
+      }
+      replenish();
+   }
+
+   @Override
+   public void onError(Throwable throwable)
+   {
+      if (!this.closed) {
+         markClosed();
+         this.publisher.closeExceptionally(throwable);
+      }
+   }
+
+   @Override
+   public void onComplete()
+   {
+      if (!this.closed) {
+         markClosed();
+         this.publisher.close();
+      }
+   }
+
+   /**
+    * @return the number of rows received from upstream
+    */
+   public long getRowsReceived()
+   {
+      return this.rowsReceived.get();
+   }
+
+   /**
+    * @return the number of results handed to subscribers
+    */
+   public long getResultsPublished()
+   {
+      return this.resultsPublished.get();
+   }
+
+   /**
+    * @return an estimate of the number of results not yet consumed by the slowest subscriber
+    */
+   public long getLag()
+   {
+      return this.publisher.estimateMaximumLag();
+   }
+
+   /**
+    * @return the number of results published per second from the arrival of the first row until
+    *         the stage was closed, or until now if it is still open
+    */
+   public double getThroughput()
+   {
+      long elapsed = (this.closed ? this.endTime : System.nanoTime()) - this.startTime;
+      if (this.rowsReceived.get() == 0 || elapsed <= 0) {
+         return 0;
+      }
+      return this.resultsPublished.get() * 1e9 / elapsed;
+   }
+}